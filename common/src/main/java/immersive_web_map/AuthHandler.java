@@ -12,7 +12,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 
-import static immersive_web_map.MapManager.UPLOADER;
+import static immersive_web_map.MapManager.META_UPLOADER;
 
 public class AuthHandler {
 
@@ -40,7 +40,7 @@ public class AuthHandler {
     }
 
     public static void auth(MinecraftServer server) {
-        UPLOADER.execute(() -> {
+        META_UPLOADER.execute(() -> {
             // Read the current identifier and token
             String identifier = readFile(server, ".immersive_web_map_id");
             String token = readFile(server, ".immersive_web_map_token");
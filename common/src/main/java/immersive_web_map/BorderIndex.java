@@ -0,0 +1,82 @@
+package immersive_web_map;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the heights of the southern edge row of every rendered chunk, so the chunk below can be shaded without loading its neighbour
+ */
+public class BorderIndex {
+    private static final int REGION_SIZE = 32;
+
+    private static final Map<RegistryKey<World>, Map<Long, Region>> INDEX = new ConcurrentHashMap<>();
+
+    private static class Region {
+        final short[] heights = new short[REGION_SIZE * REGION_SIZE * 16];
+        final long[] present = new long[REGION_SIZE * REGION_SIZE / 64];
+    }
+
+    private static long getRegionKey(int layer, int cx, int cz) {
+        return ((long) (cx >> 5) & 0xFFFFF) | ((long) (cz >> 5) & 0xFFFFF) << 20 | ((long) layer & 0xFFFF) << 40;
+    }
+
+    private static int getChunkIndex(int cx, int cz) {
+        return (cx & (REGION_SIZE - 1)) + (cz & (REGION_SIZE - 1)) * REGION_SIZE;
+    }
+
+    private static Region getRegion(ServerWorld world, int layer, int cx, int cz, boolean create) {
+        Map<Long, Region> regions = INDEX.computeIfAbsent(world.getRegistryKey(), w -> new ConcurrentHashMap<>());
+        long key = getRegionKey(layer, cx, cz);
+        return create ? regions.computeIfAbsent(key, k -> new Region()) : regions.get(key);
+    }
+
+    /**
+     * Returns the southern edge heights of the given chunk, or null if it has not been rendered yet
+     */
+    public static int[] getEdge(ServerWorld world, int layer, int cx, int cz) {
+        Region region = getRegion(world, layer, cx, cz, false);
+        if (region == null) {
+            return null;
+        }
+
+        int c = getChunkIndex(cx, cz);
+        synchronized (region) {
+            if ((region.present[c >> 6] >>> (c & 63) & 1L) == 0) {
+                return null;
+            }
+            int[] edge = new int[16];
+            for (int x = 0; x < 16; x++) {
+                edge[x] = region.heights[c * 16 + x];
+            }
+            return edge;
+        }
+    }
+
+    /**
+     * Stores the southern edge row of the given heights and returns whether it changed
+     */
+    public static boolean setEdge(ServerWorld world, int layer, int cx, int cz, int[] heights) {
+        Region region = getRegion(world, layer, cx, cz, true);
+        int c = getChunkIndex(cx, cz);
+        synchronized (region) {
+            boolean changed = (region.present[c >> 6] >>> (c & 63) & 1L) == 0;
+            region.present[c >> 6] |= 1L << (c & 63);
+            for (int x = 0; x < 16; x++) {
+                short height = (short) heights[x + 15 * 16];
+                if (region.heights[c * 16 + x] != height) {
+                    region.heights[c * 16 + x] = height;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    }
+
+    public static void clear() {
+        INDEX.clear();
+    }
+}
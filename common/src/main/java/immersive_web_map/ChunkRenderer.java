@@ -0,0 +1,337 @@
+package immersive_web_map;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.MapColor;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChunkRenderer {
+    /**
+     * The y value the backend uses for the surface layer
+     */
+    public static final int SURFACE = -9999;
+
+    private static final int SOLID = 0;
+    private static final int CLEAR = 1;
+    private static final int FLUID = 2;
+    private static final int DONE = 3;
+
+    public static class Layer {
+        public final int y;
+        public final int[] heights = new int[16 * 16];
+        public final int[] depths = new int[16 * 16];
+        public final MapColor[] colors = new MapColor[16 * 16];
+        public final byte[] image = new byte[16 * 16 * 4];
+
+        // Whether the image changed since it was last packed for upload, and the meta it was packed with
+        public boolean changed;
+        public String meta;
+
+        public Layer(int y) {
+            this.y = y;
+        }
+    }
+
+    private static final long[] NORTHERN_EDGE = {0xFFFFL, 0L, 0L, 0L};
+
+    private static final Map<RegistryKey<World>, Map<Long, Layer[]>> CACHE = new ConcurrentHashMap<>();
+
+    private static Map<Long, Layer[]> getCache(ServerWorld world) {
+        return CACHE.computeIfAbsent(world.getRegistryKey(), w -> Collections.synchronizedMap(new LinkedHashMap<Long, Layer[]>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Layer[]> eldest) {
+                return size() > Config.getInstance().renderCacheSize;
+            }
+        }));
+    }
+
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    private static boolean matches(Layer[] layers, int[] layerHeights) {
+        if (layers.length != layerHeights.length) {
+            return false;
+        }
+        for (int l = 0; l < layers.length; l++) {
+            if (layers[l].y != layerHeights[l]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the surface followed by all configured slices within the worlds bounds, from top to bottom
+     */
+    public static int[] getLayers(World world) {
+        int[] layers = Config.getInstance().layers.stream()
+                .filter(y -> y != null && y >= world.getBottomY() && y < world.getTopY())
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .mapToInt(Integer::intValue)
+                .toArray();
+        int[] result = new int[layers.length + 1];
+        result[0] = SURFACE;
+        System.arraycopy(layers, 0, result, 1, layers.length);
+        return result;
+    }
+
+    /**
+     * Renders all layers of a chunk, sharing a single descending pass per column.
+     * If the chunk is cached, only the given dirty columns are re-scanned and re-shaded, or all if null.
+     * The returned layers are shared with the cache, synchronize on them while reading.
+     */
+    public static Layer[] render(ServerWorld world, Chunk chunk, Heightmap heightmap, int[] layerHeights, long[] columns) {
+        Map<Long, Layer[]> cache = getCache(world);
+        long pos = chunk.getPos().toLong();
+        Layer[] layers = cache.get(pos);
+        if (layers == null || !matches(layers, layerHeights)) {
+            layers = new Layer[layerHeights.length];
+            for (int l = 0; l < layers.length; l++) {
+                layers[l] = new Layer(layerHeights[l]);
+            }
+            columns = null;
+        }
+
+        synchronized (layers) {
+            scan(world, chunk, heightmap, layers, columns);
+
+            // Only publish fully rendered layers
+            if (columns == null) {
+                cache.put(pos, layers);
+            }
+
+            for (Layer layer : layers) {
+                shade(layer, columns, BorderIndex.getEdge(world, layer.y, chunk.getPos().x, chunk.getPos().z - 1));
+            }
+        }
+
+        return layers;
+    }
+
+    private static void scan(ServerWorld world, Chunk chunk, Heightmap heightmap, Layer[] layers, long[] columns) {
+        int[] phase = new int[layers.length];
+        int[] start = new int[layers.length];
+        BlockPos.Mutable mutable = new BlockPos.Mutable();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                if (columns == null || DirtyTracker.isColumnDirty(columns, x + z * 16)) {
+                    scanColumn(world, chunk, heightmap, layers, x, z, mutable, phase, start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-shades the northern row of a cached chunk after its northern neighbour changed, returns null if the chunk is not cached
+     */
+    public static Layer[] reshadeNorthernEdge(ServerWorld world, ChunkPos pos) {
+        Layer[] layers = getCache(world).get(pos.toLong());
+        if (layers == null) {
+            return null;
+        }
+
+        synchronized (layers) {
+            for (Layer layer : layers) {
+                shade(layer, NORTHERN_EDGE, BorderIndex.getEdge(world, layer.y, pos.x, pos.z - 1));
+            }
+        }
+
+        return layers;
+    }
+
+    /**
+     * Publishes the southern edge of all layers and returns whether the southern neighbour needs to be re-shaded
+     */
+    public static boolean updateBorder(ServerWorld world, ChunkPos pos, Layer[] layers) {
+        boolean changed = false;
+        synchronized (layers) {
+            for (Layer layer : layers) {
+                changed |= BorderIndex.setEdge(world, layer.y, pos.x, pos.z, layer.heights);
+            }
+        }
+        return changed;
+    }
+
+    private static void scanColumn(ServerWorld world, Chunk chunk, Heightmap heightmap, Layer[] layers, int x, int z, BlockPos.Mutable mutable, int[] phase, int[] start) {
+        int bottom = world.getBottomY();
+        int bx = chunk.getPos().getStartX() + x;
+        int bz = chunk.getPos().getStartZ() + z;
+        int i = x + z * 16;
+
+        // Each layer starts at its own height, the surface right below the highest visible block
+        int y = bottom - 1;
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            layer.depths[i] = 0;
+            if (layer.y == SURFACE) {
+                start[l] = getSurfaceHeight(world, chunk, heightmap, bx, bz, mutable) - 1;
+                phase[l] = CLEAR;
+            } else {
+                start[l] = layer.y;
+                phase[l] = SOLID;
+            }
+            y = Math.max(y, start[l]);
+        }
+
+        // Travel down once, feeding every layer which already started
+        int remaining = layers.length;
+        while (remaining > 0 && y >= bottom) {
+            BlockState blockState = null;
+            int next = bottom - 1;
+            for (int l = 0; l < layers.length; l++) {
+                if (phase[l] == DONE) {
+                    continue;
+                }
+                if (start[l] < y) {
+                    next = Math.max(next, start[l]);
+                    continue;
+                }
+
+                if (blockState == null) {
+                    mutable.set(bx, y, bz);
+                    blockState = chunk.getBlockState(mutable);
+                }
+
+                Layer layer = layers[l];
+
+                // Cave slices first leave the solid block they start in
+                if (phase[l] == SOLID && !blockState.isSolidBlock(world, mutable)) {
+                    phase[l] = CLEAR;
+                }
+
+                if (phase[l] == CLEAR) {
+                    // Stop at the first non-transparent block
+                    if (blockState.getMapColor(world, mutable) != MapColor.CLEAR) {
+                        layer.heights[i] = y;
+                        layer.colors[i] = getFluidStateIfVisible(world, blockState, mutable).getMapColor(world, mutable);
+                        if (blockState.getFluidState().isEmpty()) {
+                            phase[l] = DONE;
+                            remaining--;
+                        } else {
+                            phase[l] = FLUID;
+                        }
+                    }
+                } else if (phase[l] == FLUID) {
+                    // Test how deep the liquid is
+                    layer.depths[i]++;
+                    if (blockState.getFluidState().isEmpty()) {
+                        phase[l] = DONE;
+                        remaining--;
+                    }
+                }
+            }
+
+            // Skip directly to the next layer if none is active
+            y = blockState == null ? next : y - 1;
+        }
+
+        // Layers which did not hit anything show bedrock
+        for (int l = 0; l < layers.length; l++) {
+            if (phase[l] == SOLID || phase[l] == CLEAR) {
+                layers[l].heights[i] = Math.max(bottom, start[l] + 1);
+                layers[l].colors[i] = Blocks.BEDROCK.getDefaultState().getMapColor(world, mutable);
+            }
+        }
+    }
+
+    private static int getSurfaceHeight(ServerWorld world, Chunk chunk, Heightmap heightmap, int bx, int bz, BlockPos.Mutable mutable) {
+        if (world.getDimension().hasCeiling()) {
+            int height = 64;
+            mutable.set(bx, height, bz);
+
+            // Move up until a non-solid block has been hit
+            while (height < world.getTopY() && chunk.getBlockState(mutable).isSolidBlock(world, mutable)) {
+                mutable.setY(++height);
+            }
+
+            // If we reached the very top, move down until we hit a non-solid block
+            if (mutable.getY() == world.getTopY()) {
+                height = 64;
+                mutable.setY(height);
+                while (height > world.getBottomY() && chunk.getBlockState(mutable).isSolidBlock(world, mutable)) {
+                    mutable.setY(--height);
+                }
+            }
+            return height;
+        } else {
+            return heightmap.get(bx & 15, bz & 15);
+        }
+    }
+
+    private static void shade(Layer layer, long[] columns, int[] north) {
+        byte[] image = layer.image;
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int i = x + z * 16;
+
+                // A pixel depends on itself and the previous one
+                if (columns != null && !DirtyTracker.isColumnDirty(columns, i) && (z == 0 || !DirtyTracker.isColumnDirty(columns, i - 16))) {
+                    continue;
+                }
+
+                int height = layer.heights[i];
+                int lastHeight = z > 0 ? layer.heights[i - 16] : north == null ? height : north[x];
+                MapColor mapColor = layer.colors[i];
+                MapColor.Brightness brightness = getBrightness(x, lastHeight, z, layer.depths[i], height, mapColor);
+
+                int a = brightness.brightness;
+                byte r = (byte) ((mapColor.color >> 16 & 255) * a / 255);
+                byte g = (byte) ((mapColor.color >> 8 & 255) * a / 255);
+                byte b = (byte) ((mapColor.color & 255) * a / 255);
+                if (image[i * 4] != r || image[i * 4 + 1] != g || image[i * 4 + 2] != b || image[i * 4 + 3] != 127) {
+                    image[i * 4] = r;
+                    image[i * 4 + 1] = g;
+                    image[i * 4 + 2] = b;
+                    image[i * 4 + 3] = 127;
+                    layer.changed = true;
+                }
+            }
+        }
+    }
+
+    private static MapColor.Brightness getBrightness(int x, double lastHeight, int z, double depth, int height, MapColor mapColor) {
+        if (mapColor == MapColor.WATER_BLUE) {
+            double f = depth * 0.1 + (double) (x + z & 1) * 0.2;
+            if (f < 0.5) {
+                return MapColor.Brightness.HIGH;
+            } else if (f > 0.9) {
+                return MapColor.Brightness.LOW;
+            } else {
+                return MapColor.Brightness.NORMAL;
+            }
+        } else {
+            double f = (height - lastHeight) * 0.8 + ((double) (x + z & 1) - 0.5) * 0.4;
+            if (f > 0.6) {
+                return MapColor.Brightness.HIGH;
+            } else if (f < -0.6) {
+                return MapColor.Brightness.LOW;
+            } else {
+                return MapColor.Brightness.NORMAL;
+            }
+        }
+    }
+
+    private static BlockState getFluidStateIfVisible(World world, BlockState state, BlockPos pos) {
+        FluidState fluidState = state.getFluidState();
+        if (!fluidState.isEmpty() && !state.isSideSolidFullSquare(world, pos, Direction.UP)) {
+            return fluidState.getBlockState();
+        }
+        return state;
+    }
+}
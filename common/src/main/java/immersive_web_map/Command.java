@@ -1,9 +1,12 @@
 package immersive_web_map;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import immersive_web_map.rest.API;
+import immersive_web_map.rest.RateLimiter;
 import net.minecraft.entity.Entity;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
@@ -17,12 +20,25 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
 
 public class Command {
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
         dispatcher.register(CommandManager.literal("iwm")
                 .then(register("stats", Command::displayStats))
                 .then(register("url", Command::openUrl))
+                .then(CommandManager.literal("tune").requires(cs -> cs.hasPermissionLevel(2))
+                        .executes(Command::displayTuning)
+                        .then(CommandManager.literal("renderThreads")
+                                .then(CommandManager.argument("threads", IntegerArgumentType.integer(1, 64))
+                                        .executes(ctx -> tune(ctx, config -> config.renderThreads = IntegerArgumentType.getInteger(ctx, "threads")))))
+                        .then(CommandManager.literal("uploadThreads")
+                                .then(CommandManager.argument("threads", IntegerArgumentType.integer(1, 64))
+                                        .executes(ctx -> tune(ctx, config -> config.uploadThreads = IntegerArgumentType.getInteger(ctx, "threads")))))
+                        .then(CommandManager.literal("autoScale")
+                                .then(CommandManager.argument("enabled", BoolArgumentType.bool())
+                                        .executes(ctx -> tune(ctx, config -> config.autoScale = BoolArgumentType.getBool(ctx, "enabled"))))))
         );
     }
 
@@ -42,12 +58,22 @@ public class Command {
         ServerPlayerEntity player = ctx.getSource().getPlayer();
         if (player != null) {
             sendMessage(player, " Total chunks rendered: " + humanReadable(MapManager.totalRenders.get(), ""));
+            sendMessage(player, " Chunks waiting for render: " + DirtyTracker.getDirtyChunks());
             sendMessage(player, " Total chunks uploaded: " + humanReadable(API.bytesSent.get(), "B"));
-            sendMessage(player, " Avg packet size: " + humanReadable(API.bytesSent.get() / API.bodiesSent.get(), "B"));
+            sendMessage(player, " Avg packet size: " + humanReadable(API.bytesSent.get() / Math.max(1, API.bodiesSent.get()), "B"));
+            sendMessage(player, " Chunk upload rate: " + describeLimiter(API.CHUNKS, MapManager.UPLOADER, "batches"));
+            sendMessage(player, " Meta upload rate: " + describeLimiter(API.META, MapManager.META_UPLOADER, "requests"));
         }
         return 0;
     }
 
+    private static String describeLimiter(RateLimiter limiter, ThreadPoolExecutor pool, String unit) {
+        double limit = limiter.getBytesPerSecond();
+        return humanReadable(limiter.getCurrentRate(), "B/s")
+                + (limit > 0 ? " (limit " + humanReadable((long) limit, "B/s") + ")" : "")
+                + ", " + pool.getQueue().size() + " " + unit + " queued, " + limiter.waiting.get() + " throttled";
+    }
+
     private static int openUrl(CommandContext<ServerCommandSource> ctx) {
         ServerPlayerEntity player = ctx.getSource().getPlayer();
         if (player != null) {
@@ -59,6 +85,24 @@ public class Command {
         return 0;
     }
 
+    private static int tune(CommandContext<ServerCommandSource> ctx, Consumer<Config> change) {
+        Config config = Config.getInstance();
+        change.accept(config);
+        config.save();
+        MapManager.applyConfig();
+        return displayTuning(ctx);
+    }
+
+    private static int displayTuning(CommandContext<ServerCommandSource> ctx) {
+        ServerCommandSource source = ctx.getSource();
+        Config config = Config.getInstance();
+        source.sendMessage(Text.literal(String.format(" Render threads: %d (%d configured, %d queued)", MapManager.getRenderThreads(), config.renderThreads, MapManager.outstandingRenders.get())));
+        source.sendMessage(Text.literal(String.format(" Upload threads: %d (%d queued)", MapManager.getUploadThreads(), MapManager.outstandingUploads.get())));
+        source.sendMessage(Text.literal(String.format(" Auto scale: %s (up to %d threads)", config.autoScale ? "on" : "off", config.maxRenderThreads)));
+        source.sendMessage(Text.literal(String.format(" Tick time: %.1f ms", source.getServer().getTickTime())));
+        return 0;
+    }
+
     private static ArgumentBuilder<ServerCommandSource, ?> register(String name, com.mojang.brigadier.Command<ServerCommandSource> cmd) {
         return CommandManager.literal(name).requires(cs -> cs.hasPermissionLevel(0)).executes(cmd);
     }
@@ -22,6 +22,11 @@ public final class Common {
 
     public static void serverStopping(MinecraftServer server) {
         MapManager.sync();
+
+        // Do not keep the worlds alive, especially on an integrated server
+        DirtyTracker.clear();
+        ChunkRenderer.clearCache();
+        BorderIndex.clear();
     }
 
     public static void serverTick(MinecraftServer server) {
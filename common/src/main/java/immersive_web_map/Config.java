@@ -1,16 +1,66 @@
 package immersive_web_map;
 
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+
 public final class Config extends JsonConfig {
-    private static final Config INSTANCE = loadOrCreate();
+    private static volatile Config INSTANCE = loadOrCreate();
+    private static long lastModified = getConfigFile().lastModified();
 
     public static Config getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Reloads the config if the file has been changed since it was last loaded or saved
+     */
+    public static boolean reloadIfChanged() {
+        long modified = getConfigFile().lastModified();
+        if (modified == lastModified) {
+            return false;
+        }
+        lastModified = modified;
+
+        // Unlike at startup, a broken file must not silently reset the running server to defaults
+        try {
+            Config config = fromJsonString(Files.readString(getConfigFile().toPath()));
+            if (config == null || config.version != config.getVersion()) {
+                throw new IllegalStateException("Config is empty or has an outdated version");
+            }
+            INSTANCE = config;
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Failed to reload Immersive Web Map config, keeping the current one.");
+            LOGGER.error(e);
+            return false;
+        }
+    }
+
+    @Override
+    public void save() {
+        super.save();
+        lastModified = getConfigFile().lastModified();
+    }
+
     @SuppressWarnings("unused")
     public String README = "https://github.com/Luke100000/ImmersiveWebMap/wiki/Config";
 
     public String url = "https://map.conczin.net/";
     public int renderThreads = 1;
     public int uploadThreads = 2;
+    public boolean autoScale = true;
+    public int maxRenderThreads = 4;
+    public float scaleTickTime = 30.0f;
+    public List<Integer> layers = new LinkedList<>();
+    public int renderDelay = 2000;
+    public int minRenderInterval = 10000;
+    public int maxRendersPerTick = 8;
+    public int renderCacheSize = 2048;
+    public int chunkBytesPerSecond = 0;
+    public int chunkRequestsPerSecond = 0;
+    public int metaBytesPerSecond = 0;
+    public int metaRequestsPerSecond = 0;
+    public float burstSeconds = 2.0f;
+    public float throttleTickTime = 40.0f;
 }
@@ -0,0 +1,186 @@
+package immersive_web_map;
+
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects chunk changes from various sources and turns them into a steady, debounced flow of renders
+ */
+public class DirtyTracker {
+    private static final Map<ServerWorld, Map<Long, Entry>> WORLDS = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        final long[] columns = new long[4];
+        boolean dirty;
+        boolean edited;
+        long dirtySince;
+        long lastChange;
+        long lastRender;
+    }
+
+    private static Entry getEntry(ServerWorld world, long pos) {
+        return WORLDS.computeIfAbsent(world, w -> new ConcurrentHashMap<>()).computeIfAbsent(pos, p -> new Entry());
+    }
+
+    public static boolean isColumnDirty(long[] columns, int i) {
+        return (columns[i >> 6] >>> (i & 63) & 1L) != 0;
+    }
+
+    /**
+     * Marks the whole chunk as dirty
+     */
+    public static void markDirty(ServerWorld world, ChunkPos pos) {
+        Entry entry = getEntry(world, pos.toLong());
+        synchronized (entry) {
+            Arrays.fill(entry.columns, -1L);
+            touch(entry);
+        }
+    }
+
+    /**
+     * Marks a single column as dirty. The renderer re-shades the pixel south of it on its own.
+     */
+    public static void markDirty(ServerWorld world, BlockPos pos) {
+        int i = (pos.getX() & 15) + (pos.getZ() & 15) * 16;
+        Entry entry = getEntry(world, ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4));
+        synchronized (entry) {
+            entry.columns[i >> 6] |= 1L << (i & 63);
+            entry.edited = true;
+            touch(entry);
+        }
+    }
+
+    /**
+     * The chunk is about to be saved. Saving is also caused by block changes, which are already tracked per column,
+     * so only otherwise unexplained saves mark the whole chunk as dirty.
+     */
+    public static void markSaved(ServerWorld world, WorldChunk chunk) {
+        if (MapManager.isUnseen(chunk)) {
+            markDirty(world, chunk.getPos());
+        } else if (chunk.needsSaving() && !consumeEdited(world, chunk.getPos().toLong())) {
+            markDirty(world, chunk.getPos());
+        }
+    }
+
+    private static boolean consumeEdited(ServerWorld world, long pos) {
+        Map<Long, Entry> entries = WORLDS.get(world);
+        Entry entry = entries == null ? null : entries.get(pos);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            boolean edited = entry.edited;
+            entry.edited = false;
+            return edited;
+        }
+    }
+
+    private static void touch(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (!entry.dirty) {
+            entry.dirty = true;
+            entry.dirtySince = now;
+        }
+        entry.lastChange = now;
+    }
+
+    /**
+     * The chunk reached full status, either freshly generated or loaded from disk
+     */
+    public static void markLoaded(ServerWorld world, WorldChunk chunk) {
+        if (MapManager.isUnseen(chunk)) {
+            markDirty(world, chunk.getPos());
+        }
+    }
+
+    /**
+     * The chunk is about to leave memory, render it right away if there are pending changes
+     */
+    public static void markUnloaded(ServerWorld world, WorldChunk chunk) {
+        Map<Long, Entry> entries = WORLDS.get(world);
+        Entry entry = entries == null ? null : entries.remove(chunk.getPos().toLong());
+
+        boolean dirty = false;
+        boolean edited = false;
+        long[] columns = null;
+        if (entry != null) {
+            synchronized (entry) {
+                dirty = entry.dirty;
+                edited = entry.edited;
+                columns = entry.columns.clone();
+            }
+        }
+
+        if (MapManager.isUnseen(chunk) || chunk.needsSaving() && !edited) {
+            MapManager.updateChunkAsync(world, chunk);
+        } else if (dirty) {
+            MapManager.updateChunkAsync(world, chunk, columns);
+        }
+    }
+
+    public static void tick() {
+        Config config = Config.getInstance();
+        long now = System.currentTimeMillis();
+        int budget = config.maxRendersPerTick;
+
+        for (Map.Entry<ServerWorld, Map<Long, Entry>> world : WORLDS.entrySet()) {
+            Iterator<Map.Entry<Long, Entry>> iterator = world.getValue().entrySet().iterator();
+            while (iterator.hasNext() && budget > 0) {
+                Map.Entry<Long, Entry> e = iterator.next();
+                Entry entry = e.getValue();
+                synchronized (entry) {
+                    if (!entry.dirty) {
+                        // Forget about chunks which are allowed to render immediately again, but remember edits until the next save
+                        if (now - entry.lastRender >= config.minRenderInterval && !entry.edited) {
+                            iterator.remove();
+                        }
+                        continue;
+                    }
+
+                    // Wait until the chunk settled, but do not postpone forever
+                    boolean settled = now - entry.lastChange >= config.renderDelay || now - entry.dirtySince >= config.minRenderInterval;
+                    if (!settled || now - entry.lastRender < config.minRenderInterval) {
+                        continue;
+                    }
+
+                    long pos = e.getKey();
+                    WorldChunk chunk = world.getKey().getChunkManager().getWorldChunk(ChunkPos.getPackedX(pos), ChunkPos.getPackedZ(pos));
+                    if (chunk == null) {
+                        iterator.remove();
+                        continue;
+                    }
+
+                    long[] columns = entry.columns.clone();
+                    Arrays.fill(entry.columns, 0L);
+                    entry.dirty = false;
+                    entry.lastRender = now;
+                    MapManager.updateChunkAsync(world.getKey(), chunk, columns);
+                    budget--;
+                }
+            }
+        }
+    }
+
+    public static int getDirtyChunks() {
+        int count = 0;
+        for (Map<Long, Entry> entries : WORLDS.values()) {
+            for (Entry entry : entries.values()) {
+                if (entry.dirty) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static void clear() {
+        WORLDS.clear();
+    }
+}
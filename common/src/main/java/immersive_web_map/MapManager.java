@@ -4,18 +4,12 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import immersive_web_map.integration.IntegrationManager;
 import immersive_web_map.rest.API;
-import net.minecraft.block.BlockState;
-import net.minecraft.block.Blocks;
-import net.minecraft.block.MapColor;
-import net.minecraft.fluid.FluidState;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.Heightmap;
-import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkStatus;
 import org.jetbrains.annotations.NotNull;
@@ -23,17 +17,23 @@ import org.jetbrains.annotations.NotNull;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 public class MapManager {
-    protected static final Executor RENDERER = Executors.newFixedThreadPool(Config.getInstance().renderThreads);
-    public static final Executor UPLOADER = Executors.newFixedThreadPool(Config.getInstance().uploadThreads);
+    protected static final ThreadPoolExecutor RENDERER = createPool(Config.getInstance().renderThreads);
+    public static final ThreadPoolExecutor UPLOADER = createPool(Config.getInstance().uploadThreads);
+    public static final ThreadPoolExecutor META_UPLOADER = createPool(1);
 
     public static final AtomicInteger totalRenders = new AtomicInteger();
     public static final AtomicInteger outstandingRenders = new AtomicInteger();
@@ -43,16 +43,81 @@ public class MapManager {
 
     private static final Map<String, ConcurrentLinkedQueue<Map<String, String>>> COMPACTOR = new ConcurrentHashMap<>();
 
+    private static ThreadPoolExecutor createPool(int threads) {
+        int size = Math.max(1, threads);
+        return new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    public static void setPoolSize(ThreadPoolExecutor pool, int threads) {
+        int size = Math.max(1, threads);
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Applies the thread counts of the current config
+     */
+    public static void applyConfig() {
+        Config config = Config.getInstance();
+        setPoolSize(RENDERER, config.renderThreads);
+        setPoolSize(UPLOADER, config.uploadThreads);
+    }
+
+    /**
+     * Grows the renderer while work queues up and the server has headroom, and shrinks it when the server needs the cores
+     */
+    private static void autoScale(float tickTime) {
+        Config config = Config.getInstance();
+        int threads = RENDERER.getCorePoolSize();
+        int queued = RENDERER.getQueue().size();
+        int max = Math.min(config.maxRenderThreads, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+        if (tickTime > config.throttleTickTime && threads > 1) {
+            setPoolSize(RENDERER, threads - 1);
+        } else if (tickTime < config.scaleTickTime && threads < config.renderThreads) {
+            // Recover from an earlier back-off
+            setPoolSize(RENDERER, threads + 1);
+        } else if (tickTime < config.scaleTickTime && queued > threads * 16 && threads < max) {
+            setPoolSize(RENDERER, threads + 1);
+        } else if (queued == 0 && threads > config.renderThreads) {
+            setPoolSize(RENDERER, threads - 1);
+        }
+    }
+
+    public static int getRenderThreads() {
+        return RENDERER.getCorePoolSize();
+    }
+
+    public static int getUploadThreads() {
+        return UPLOADER.getCorePoolSize();
+    }
+
     public static void updateChunkAsync(ServerWorld world, Chunk chunk) {
+        updateChunkAsync(world, chunk, null);
+    }
+
+    /**
+     * Renders a chunk, optionally only re-scanning the given dirty columns
+     */
+    public static void updateChunkAsync(ServerWorld world, Chunk chunk, long[] columns) {
         outstandingRenders.incrementAndGet();
         RENDERER.execute(() -> {
-            updateChunk(world, chunk);
+            updateChunk(world, chunk, columns);
             totalRenders.incrementAndGet();
             outstandingRenders.decrementAndGet();
         });
     }
 
     public static void updateChunk(ServerWorld world, Chunk chunk) {
+        updateChunk(world, chunk, null);
+    }
+
+    public static void updateChunk(ServerWorld world, Chunk chunk, long[] columns) {
         if (AuthHandler.getImmersiveIdentifier() == null) {
             return;
         }
@@ -61,150 +126,102 @@ public class MapManager {
             return;
         }
 
-        BlockPos.Mutable mutable2 = new BlockPos.Mutable();
-
         Heightmap heightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
         if (heightmap == null) {
             return;
         }
 
-        int sx = chunk.getPos().getStartX();
-        int sz = chunk.getPos().getStartZ();
-
-        byte[] image = new byte[16 * 16 * 4];
-
-        BlockPos.Mutable mutable = new BlockPos.Mutable();
-        for (int x = 0; x < 16; x++) {
-            double lastHeight = -1.0;
-            for (int z = 0; z < 16; z++) {
-                int depth = 0;
-
-                mutable.set(sx + x, 0, sz + z);
-
-                int height;
-                if (world.getDimension().hasCeiling())  {
-                    height = 64;
-
-                    // Move up until a non-solid block has been hit
-                    while (height < world.getTopY() && chunk.getBlockState(mutable).isSolidBlock(world, mutable)) {
-                        mutable.setY(++height);
-                    }
-
-                    // If we reached the very top, move down until we hit a non-solid block
-                    if (mutable.getY() == world.getTopY()) {
-                        height = 64;
-                        while (height > world.getBottomY() && chunk.getBlockState(mutable).isSolidBlock(world, mutable)) {
-                            mutable.setY(--height);
-                        }
-                    }
-                } else {
-                    height = heightmap.get(x, z);
-                }
-
-                BlockState blockState;
-                if (height > world.getBottomY()) {
-                    // Travel down until we hit a non-transparent block
-                    do {
-                        mutable.setY(--height);
-                        blockState = chunk.getBlockState(mutable);
-                    } while (blockState.getMapColor(world, mutable) == MapColor.CLEAR && height >= world.getBottomY());
-
-                    // Test how deep the liquid is
-                    if (height >= world.getBottomY() && !blockState.getFluidState().isEmpty()) {
-                        BlockState fluidBlockState;
-                        int y = height - 1;
-                        mutable2.set(mutable);
-                        do {
-                            mutable2.setY(y--);
-                            fluidBlockState = chunk.getBlockState(mutable2);
-                            ++depth;
-                        } while (y > world.getBottomY() && !fluidBlockState.getFluidState().isEmpty());
-                        blockState = getFluidStateIfVisible(world, blockState, mutable);
-                    }
-                } else {
-                    blockState = Blocks.BEDROCK.getDefaultState();
-                }
-
-                // Construct color
-                MapColor mapColor = blockState.getMapColor(world, mutable);
-                MapColor.Brightness brightness = getBrightness(x, lastHeight < 0 ? height : lastHeight, z, depth, height, mapColor);
-
-                int a = brightness.brightness;
-                image[x * 4 + z * 64] = (byte) ((mapColor.color >> 16 & 255) * a / 255);
-                image[x * 4 + z * 64 + 1] = (byte) ((mapColor.color >> 8 & 255) * a / 255);
-                image[x * 4 + z * 64 + 2] = (byte) ((mapColor.color & 255) * a / 255);
-                image[x * 4 + z * 64 + 3] = 127;
+        boolean borderChanged = render(world, chunk, heightmap, columns, (pos, layers) -> enqueue(world, pos, layers));
+        setSeen(chunk);
 
-                lastHeight = height;
-            }
+        if (borderChanged) {
+            reshadeAsync(world, new ChunkPos(chunk.getPos().x, chunk.getPos().z + 1));
         }
+    }
 
-        // Encode image
-        final String data = Base64.getEncoder().encodeToString(image);
+    /**
+     * Renders the surface and all cave slices in one go and passes the layers on.
+     * Returns whether the southern neighbour needs to be re-shaded, since it shades its first row against our last one.
+     */
+    public static boolean render(ServerWorld world, Chunk chunk, Heightmap heightmap, long[] columns, BiConsumer<ChunkPos, ChunkRenderer.Layer[]> consumer) {
+        ChunkRenderer.Layer[] layers = ChunkRenderer.render(world, chunk, heightmap, ChunkRenderer.getLayers(world), columns);
+        consumer.accept(chunk.getPos(), layers);
+        return ChunkRenderer.updateBorder(world, chunk.getPos(), layers);
+    }
 
-        // Build chunk meta
-        JsonObject meta = new JsonObject();
-        IntegrationManager.fillChunkMeta(meta, world, chunk.getPos());
+    public static void reshade(ServerWorld world, ChunkPos pos, BiConsumer<ChunkPos, ChunkRenderer.Layer[]> consumer) {
+        ChunkRenderer.Layer[] layers = ChunkRenderer.reshadeNorthernEdge(world, pos);
+        if (layers != null) {
+            consumer.accept(pos, layers);
+        }
+    }
 
-        // Pack chunks
-        Map<String, String> packet = Map.of(
-                "x", String.valueOf(sx / 16),
-                "z", String.valueOf(sz / 16),
-                "meta", meta.toString(),
-                "data", data
-        );
+    private static void reshadeAsync(ServerWorld world, ChunkPos pos) {
+        outstandingRenders.incrementAndGet();
+        RENDERER.execute(() -> {
+            reshade(world, pos, (p, layers) -> enqueue(world, p, layers));
+            outstandingRenders.decrementAndGet();
+        });
+    }
 
+    private static void enqueue(ServerWorld world, ChunkPos pos, ChunkRenderer.Layer[] layers) {
         // Batch chunks
         String endpoint = "v1/chunks/" + getDimensionEndpoint(world);
         ConcurrentLinkedQueue<Map<String, String>> batch = COMPACTOR.computeIfAbsent(endpoint, a -> new ConcurrentLinkedQueue<>());
-        batch.add(packet);
+        addPackets(batch, world, pos, layers);
 
         // Upload to server
         if (batch.size() >= BATCH_SIZE) {
             upload(endpoint, batch);
         }
+    }
 
-        setSeen(chunk);
+    /**
+     * Packs all layers of a chunk into upload packets, skipping layers which did not change since they were last packed
+     */
+    public static void addPackets(Collection<Map<String, String>> batch, ServerWorld world, ChunkPos pos, ChunkRenderer.Layer[] layers) {
+        // Build chunk meta
+        JsonObject meta = new JsonObject();
+        IntegrationManager.fillChunkMeta(meta, world, pos);
+        String metaString = meta.toString();
+
+        synchronized (layers) {
+            for (ChunkRenderer.Layer layer : layers) {
+                boolean surface = layer.y == ChunkRenderer.SURFACE;
+                if (!layer.changed && (!surface || metaString.equals(layer.meta))) {
+                    continue;
+                }
+                layer.changed = false;
+                layer.meta = surface ? metaString : null;
+
+                batch.add(Map.of(
+                        "x", String.valueOf(pos.x),
+                        "y", String.valueOf(layer.y),
+                        "z", String.valueOf(pos.z),
+                        "meta", surface ? metaString : "{}",
+                        "data", Base64.getEncoder().encodeToString(layer.image)
+                ));
+            }
+        }
     }
 
     @NotNull
     private static String getDimensionEndpoint(ServerWorld world) {
-        Identifier dimension = world.getDimensionKey().getValue();
-        return encode(AuthHandler.getImmersiveIdentifier()) + "/" + encode(dimension.toString());
+        return getDimensionEndpoint(AuthHandler.getImmersiveIdentifier(), world);
     }
 
-    private static String encode(String str) {
-        return URLEncoder.encode(str, StandardCharsets.UTF_8);
+    @NotNull
+    public static String getDimensionEndpoint(String identifier, ServerWorld world) {
+        Identifier dimension = world.getDimensionKey().getValue();
+        return encode(identifier) + "/" + encode(dimension.toString());
     }
 
-    private static MapColor.Brightness getBrightness(int x, double lastHeight, int z, double depth, int height, MapColor mapColor) {
-        if (mapColor == MapColor.WATER_BLUE) {
-            double f = depth * 0.1 + (double) (x + z & 1) * 0.2;
-            if (f < 0.5) {
-                return MapColor.Brightness.HIGH;
-            } else if (f > 0.9) {
-                return MapColor.Brightness.LOW;
-            } else {
-                return MapColor.Brightness.NORMAL;
-            }
-        } else {
-            double f = (height - lastHeight) * 0.8 + ((double) (x + z & 1) - 0.5) * 0.4;
-            if (f > 0.6) {
-                return MapColor.Brightness.HIGH;
-            } else if (f < -0.6) {
-                return MapColor.Brightness.LOW;
-            } else {
-                return MapColor.Brightness.NORMAL;
-            }
-        }
+    public static int getBatchSize() {
+        return BATCH_SIZE;
     }
 
-    private static BlockState getFluidStateIfVisible(World world, BlockState state, BlockPos pos) {
-        FluidState fluidState = state.getFluidState();
-        if (!fluidState.isEmpty() && !state.isSideSolidFullSquare(world, pos, Direction.UP)) {
-            return fluidState.getBlockState();
-        }
-        return state;
+    private static String encode(String str) {
+        return URLEncoder.encode(str, StandardCharsets.UTF_8);
     }
 
     private static int tick;
@@ -212,6 +229,21 @@ public class MapManager {
     public static void tick(MinecraftServer server) {
         tick++;
 
+        DirtyTracker.tick();
+
+        if (tick % 20 == 0) {
+            API.updateTickTime(server.getTickTime());
+        }
+
+        if (tick % 100 == 0) {
+            if (Config.reloadIfChanged()) {
+                applyConfig();
+                Common.LOGGER.info("Immersive Web Map config reloaded.");
+            } else if (Config.getInstance().autoScale) {
+                autoScale(server.getTickTime());
+            }
+        }
+
         if (tick % 200 == 0 && AuthHandler.getImmersiveIdentifier() != null) {
             // World information
             JsonObject json = new JsonObject();
@@ -249,12 +281,13 @@ public class MapManager {
     }
 
     private static void uploadMeta(String endpoint, JsonObject json) {
+        // Meta has its own thread, so it does not queue behind throttled chunk batches
         outstandingUploads.incrementAndGet();
-        UPLOADER.execute(() -> {
+        META_UPLOADER.execute(() -> {
             API.request(API.HttpMethod.PUT, endpoint, Map.of(
                     "token", AuthHandler.getImmersiveToken(),
                     "meta", json.toString()
-            ));
+            ), null, API.META);
             outstandingUploads.decrementAndGet();
         });
     }
@@ -269,6 +302,13 @@ public class MapManager {
     }
 
     private static void upload(String endpoint, ConcurrentLinkedQueue<Map<String, String>> batch) {
+        upload(UPLOADER, Config.getInstance().url, endpoint, AuthHandler::getImmersiveToken, batch);
+    }
+
+    /**
+     * Sends everything queued in the batch to the given backend, in packets of up to BATCH_SIZE chunks
+     */
+    public static void upload(Executor executor, String baseUrl, String endpoint, Supplier<String> token, ConcurrentLinkedQueue<Map<String, String>> batch) {
         while (!batch.isEmpty()) {
             LinkedList<Map<String, String>> buffer = new LinkedList<>();
             for (int i = 0; i < BATCH_SIZE; i++) {
@@ -277,10 +317,10 @@ public class MapManager {
                 buffer.add(poll);
             }
             outstandingUploads.incrementAndGet();
-            UPLOADER.execute(() -> {
-                API.request(API.HttpMethod.GET, endpoint, Map.of(
-                        "token", AuthHandler.getImmersiveToken()
-                ), buffer);
+            executor.execute(() -> {
+                API.request(baseUrl, API.HttpMethod.GET, endpoint, Map.of(
+                        "token", token.get()
+                ), buffer, API.CHUNKS);
                 outstandingUploads.decrementAndGet();
             });
         }
@@ -298,6 +338,9 @@ public class MapManager {
 
     public static void clearSeen() {
         SEEN.clear();
+        DirtyTracker.clear();
+        ChunkRenderer.clearCache();
+        BorderIndex.clear();
 
         totalRenders.set(0);
         outstandingRenders.set(0);
@@ -1,9 +1,10 @@
 package immersive_web_map.mixin;
 
-import immersive_web_map.MapManager;
+import immersive_web_map.DirtyTracker;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.server.world.ThreadedAnvilChunkStorage;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.WorldChunk;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -19,8 +20,9 @@ public abstract class ThreadedAnvilChunkStorageMixin {
 
     @Inject(method = "save(Lnet/minecraft/world/chunk/Chunk;)Z", at = @At("HEAD"))
     private void im$injectSave(Chunk chunk, CallbackInfoReturnable<Boolean> cir) {
-        if (chunk.needsSaving() || MapManager.isUnseen(chunk)) {
-            MapManager.updateChunkAsync(this.world, chunk);
+        // Unloading chunks have already been rendered by the unload hook
+        if (chunk instanceof WorldChunk worldChunk && worldChunk.loadedToWorld) {
+            DirtyTracker.markSaved(this.world, worldChunk);
         }
     }
 }
@@ -0,0 +1,41 @@
+package immersive_web_map.mixin;
+
+import immersive_web_map.DirtyTracker;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(WorldChunk.class)
+public abstract class WorldChunkMixin {
+    @Shadow
+    @Final
+    World world;
+
+    @Inject(method = "setBlockState(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;Z)Lnet/minecraft/block/BlockState;", at = @At("RETURN"))
+    private void im$injectSetBlockState(BlockPos pos, BlockState state, boolean moved, CallbackInfoReturnable<BlockState> cir) {
+        if (cir.getReturnValue() != null && this.world instanceof ServerWorld serverWorld) {
+            DirtyTracker.markDirty(serverWorld, pos);
+        }
+    }
+
+    @Inject(method = "setLoadedToWorld(Z)V", at = @At("HEAD"))
+    private void im$injectSetLoadedToWorld(boolean loadedToWorld, CallbackInfo ci) {
+        if (this.world instanceof ServerWorld serverWorld) {
+            WorldChunk chunk = (WorldChunk) (Object) this;
+            if (loadedToWorld) {
+                DirtyTracker.markLoaded(serverWorld, chunk);
+            } else {
+                DirtyTracker.markUnloaded(serverWorld, chunk);
+            }
+        }
+    }
+}
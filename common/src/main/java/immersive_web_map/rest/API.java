@@ -5,7 +5,8 @@ import immersive_web_map.Common;
 import immersive_web_map.Config;
 import org.apache.commons.io.IOUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -17,20 +18,52 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class API {
+    private static final Gson GSON = new Gson();
+    private static final int BUFFER_SIZE = 8192;
+
     public static AtomicInteger bytesSent = new AtomicInteger();
     public static AtomicInteger bodiesSent = new AtomicInteger();
 
+    public static final RateLimiter CHUNKS = new RateLimiter(c -> c.chunkBytesPerSecond, c -> c.chunkRequestsPerSecond);
+    public static final RateLimiter META = new RateLimiter(c -> c.metaBytesPerSecond, c -> c.metaRequestsPerSecond);
+
     public enum HttpMethod {
         POST, GET, DELETE, PUT
     }
 
+    /**
+     * Backs off the upload rates while the server tick takes longer than configured, and recovers slowly otherwise
+     */
+    public static void updateTickTime(float tickTime) {
+        double factor = CHUNKS.getFactor();
+        if (tickTime > Config.getInstance().throttleTickTime) {
+            factor = Math.max(0.1, factor * 0.8);
+        } else {
+            factor = Math.min(1.0, factor * 1.05);
+        }
+        CHUNKS.setFactor(factor);
+        META.setFactor(factor);
+    }
+
     public static String request(HttpMethod httpMethod, String url, Map<String, String> queryParams) {
         return request(httpMethod, url, queryParams, null);
     }
 
     public static String request(HttpMethod httpMethod, String url, Map<String, String> queryParams, Object body) {
+        return request(httpMethod, url, queryParams, body, null);
+    }
+
+    public static String request(HttpMethod httpMethod, String url, Map<String, String> queryParams, Object body, RateLimiter limiter) {
+        return request(Config.getInstance().url, httpMethod, url, queryParams, body, limiter);
+    }
+
+    public static String request(String baseUrl, HttpMethod httpMethod, String url, Map<String, String> queryParams, Object body, RateLimiter limiter) {
         try {
-            String fullUrl = Config.getInstance().url + url;
+            if (limiter != null) {
+                limiter.acquire();
+            }
+
+            String fullUrl = baseUrl + url;
 
             // Append query params
             if (queryParams != null) {
@@ -49,25 +82,25 @@ public class API {
             con.setRequestProperty("Accept-Encoding", "gzip");
             con.setRequestProperty("Accept", "application/json");
 
-            // Set request body
+            // Stream the request body through the encoder and compressor directly into the connection
             if (body != null) {
                 con.setDoOutput(true);
-                Gson gson = new Gson();
-                String jsonBody = gson.toJson(body);
+                con.setChunkedStreamingMode(BUFFER_SIZE);
+                con.setRequestProperty("Content-Encoding", "gzip");
 
-                ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                try (GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream)) {
-                    gzipStream.write(jsonBody.getBytes(StandardCharsets.UTF_8));
+                CountingOutputStream counter = new CountingOutputStream(con.getOutputStream(), limiter);
+                try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(counter, BUFFER_SIZE), StandardCharsets.UTF_8)) {
+                    GSON.toJson(body, writer);
                 }
-                byte[] compressedData = byteStream.toByteArray();
 
-                con.setRequestProperty("Content-Encoding", "gzip");
-                con.getOutputStream().write(compressedData);
-
-                bytesSent.addAndGet(compressedData.length);
+                bytesSent.addAndGet((int) counter.getCount());
                 bodiesSent.incrementAndGet();
             }
 
+            if (limiter != null) {
+                limiter.consume(fullUrl.length());
+            }
+
             // Send the request and read response
             if (con.getErrorStream() != null) {
                 return IOUtils.toString(con.getErrorStream(), StandardCharsets.UTF_8);
@@ -0,0 +1,41 @@
+package immersive_web_map.rest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes passing through and pays for them at the rate limiter as they are written
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private final RateLimiter limiter;
+    private long count;
+
+    public CountingOutputStream(OutputStream out, RateLimiter limiter) {
+        super(out);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        written(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written(len);
+    }
+
+    private void written(int len) {
+        count += len;
+        if (limiter != null) {
+            limiter.consume(len);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,131 @@
+package immersive_web_map.rest;
+
+import immersive_web_map.Config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * A token bucket limiting requests and bytes per second, allowing bursts of up to burstSeconds worth of tokens.
+ * Bytes are paid after sending, so a large request may overdraw the bucket and delays the following ones instead.
+ */
+public class RateLimiter {
+    private final ToIntFunction<Config> bytesPerSecond;
+    private final ToIntFunction<Config> requestsPerSecond;
+
+    private double bytes;
+    private double requests;
+    private long lastRefill = System.nanoTime();
+
+    private static final long MIN_BASELINE = 65536;
+
+    private volatile double factor = 1.0;
+    private volatile double baseline;
+
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private volatile long currentRate;
+
+    public final AtomicInteger waiting = new AtomicInteger();
+
+    public RateLimiter(ToIntFunction<Config> bytesPerSecond, ToIntFunction<Config> requestsPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    private void refill() {
+        Config config = Config.getInstance();
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+
+        double byteRate = getBytesPerSecond();
+        double requestRate = getRequestsPerSecond();
+
+        // While unlimited, forget debt from an earlier back-off so it does not stall the next one
+        bytes = byteRate > 0 ? Math.min(bytes + seconds * byteRate, Math.max(byteRate * config.burstSeconds, 1.0)) : 0;
+        requests = requestRate > 0 ? Math.min(requests + seconds * requestRate, Math.max(requestRate * config.burstSeconds, 1.0)) : 0;
+    }
+
+    /**
+     * Blocks until a request may be sent
+     */
+    public void acquire() throws InterruptedException {
+        waiting.incrementAndGet();
+        try {
+            synchronized (this) {
+                while (true) {
+                    refill();
+
+                    double byteRate = getBytesPerSecond();
+                    double requestRate = getRequestsPerSecond();
+                    boolean bytesAvailable = byteRate <= 0 || bytes >= 0;
+                    boolean requestsAvailable = requestRate <= 0 || requests >= 1;
+                    if (bytesAvailable && requestsAvailable) {
+                        requests = Math.max(0, requests - 1);
+                        return;
+                    }
+
+                    // Sleep until the missing tokens are refilled
+                    double seconds = Math.max(
+                            bytesAvailable ? 0 : -bytes / byteRate,
+                            requestsAvailable ? 0 : (1 - requests) / requestRate
+                    );
+                    wait(Math.max(1, (long) (seconds * 1000)));
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Pays for bytes already sent
+     */
+    public synchronized void consume(long sent) {
+        refill();
+        if (getBytesPerSecond() > 0) {
+            bytes -= sent;
+        }
+
+        // Measure the actual rate over roughly one second
+        windowBytes += sent;
+        long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            currentRate = windowBytes * 1_000_000_000L / (now - windowStart);
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    /**
+     * Scales the configured rates, used to back off while the server struggles.
+     * Without a configured byte rate, the back-off applies to the rate measured when it started.
+     */
+    public void setFactor(double factor) {
+        if (factor < 1.0 && this.factor >= 1.0) {
+            baseline = Math.max(getCurrentRate(), MIN_BASELINE);
+        }
+        this.factor = factor;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public double getBytesPerSecond() {
+        int configured = bytesPerSecond.applyAsInt(Config.getInstance());
+        if (configured > 0) {
+            return configured * factor;
+        }
+        return factor < 1.0 ? baseline * factor : 0;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond.applyAsInt(Config.getInstance()) * factor;
+    }
+
+    public long getCurrentRate() {
+        return System.nanoTime() - windowStart > 2_000_000_000L ? 0 : currentRate;
+    }
+}
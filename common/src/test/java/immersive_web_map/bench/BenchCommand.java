@@ -0,0 +1,48 @@
+package immersive_web_map.bench;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import immersive_web_map.Common;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+/**
+ * Adds /iwm bench to the development server, it is not part of the released mod
+ */
+public class BenchCommand {
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(CommandManager.literal("iwm")
+                .then(CommandManager.literal("bench").requires(cs -> cs.hasPermissionLevel(2))
+                        .then(CommandManager.argument("chunks", IntegerArgumentType.integer(1, 65536))
+                                .executes(BenchCommand::run)
+                                .then(CommandManager.argument("latency", IntegerArgumentType.integer(0))
+                                        .executes(BenchCommand::run)
+                                        .then(CommandManager.argument("errorRate", DoubleArgumentType.doubleArg(0.0, 1.0))
+                                                .executes(BenchCommand::run)
+                                                .then(CommandManager.argument("bandwidth", IntegerArgumentType.integer(0))
+                                                        .executes(BenchCommand::run))))))
+        );
+    }
+
+    private static int run(CommandContext<ServerCommandSource> ctx) {
+        ServerCommandSource source = ctx.getSource();
+        int chunks = IntegerArgumentType.getInteger(ctx, "chunks");
+        int latency = hasArgument(ctx, "latency") ? IntegerArgumentType.getInteger(ctx, "latency") : 0;
+        double errorRate = hasArgument(ctx, "errorRate") ? DoubleArgumentType.getDouble(ctx, "errorRate") : 0.0;
+        int bandwidth = hasArgument(ctx, "bandwidth") ? IntegerArgumentType.getInteger(ctx, "bandwidth") : 0;
+
+        boolean started = LoadTest.start(source.getWorld(), chunks, latency, errorRate, bandwidth, message -> {
+            Common.LOGGER.info(message);
+            source.getServer().execute(() -> source.sendMessage(Text.literal(message)));
+        });
+        source.sendMessage(Text.literal(started ? "Load test started against a local stand-in backend." : "A load test is already running."));
+        return 0;
+    }
+
+    private static boolean hasArgument(CommandContext<ServerCommandSource> ctx, String name) {
+        return ctx.getNodes().stream().anyMatch(node -> node.getNode().getName().equals(name));
+    }
+}
@@ -0,0 +1,281 @@
+package immersive_web_map.bench;
+
+import com.google.gson.JsonObject;
+import immersive_web_map.AuthHandler;
+import immersive_web_map.ChunkRenderer;
+import immersive_web_map.Common;
+import immersive_web_map.Config;
+import immersive_web_map.MapManager;
+import immersive_web_map.rest.API;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Feeds synthetic chunks through the render, batch and upload path of {@link MapManager} against a local {@link StandInBackend}
+ */
+public class LoadTest {
+    private static final AtomicBoolean RUNNING = new AtomicBoolean();
+
+    // Far away from anything a player would explore
+    private static final int OFFSET = 1_000_000;
+
+    private static final long TIMEOUT = 30_000;
+
+    private static class Phase {
+        final Map<Long, Long> pending = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final AtomicLong lastReceived = new AtomicLong();
+        final long start = System.nanoTime();
+    }
+
+    /**
+     * Runs the load test on its own thread, first rendering all chunks from scratch, then re-rendering a single edited column of each
+     */
+    public static boolean start(ServerWorld world, int chunks, int latency, double errorRate, long bandwidth, Consumer<String> output) {
+        if (!RUNNING.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                run(world, chunks, latency, errorRate, bandwidth, output);
+            } catch (Exception e) {
+                Common.LOGGER.error(e);
+                output.accept("Load test failed: " + e.getMessage());
+            } finally {
+                RUNNING.set(false);
+            }
+        }, "Immersive Web Map Load Test");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private static void run(ServerWorld world, int chunks, int latency, double errorRate, long bandwidth, Consumer<String> output) throws Exception {
+        AtomicReference<Phase> phase = new AtomicReference<>();
+        StandInBackend backend = new StandInBackend(latency, errorRate, bandwidth, (x, y, z) -> {
+            Phase current = phase.get();
+            if (current != null && y == ChunkRenderer.SURFACE) {
+                Long start = current.pending.remove(ChunkPos.toLong(x, z));
+                if (start != null) {
+                    long now = System.nanoTime();
+                    current.latencies.add(now - start);
+                    current.lastReceived.set(now);
+                }
+            }
+        });
+
+        ExecutorService uploader = Executors.newFixedThreadPool(Math.max(1, Config.getInstance().uploadThreads));
+
+        backend.start();
+        try {
+            // Authenticate against the stand-in, the live session is left alone
+            String url = backend.getUrl();
+            String auth = API.request(url, API.HttpMethod.GET, "v1/auth", Map.of("server", "-1", "token", "none"), null, null);
+            if (auth == null) {
+                output.accept("Stand-in backend did not answer.");
+                return;
+            }
+            JsonObject json = AuthHandler.gson.fromJson(auth, JsonObject.class);
+            String endpoint = "v1/chunks/" + MapManager.getDimensionEndpoint(json.get("server").getAsString(), world);
+            String token = json.get("token").getAsString();
+
+            // The same batching as the live map, just towards the stand-in
+            ConcurrentLinkedQueue<Map<String, String>> batch = new ConcurrentLinkedQueue<>();
+            BiConsumer<ChunkPos, ChunkRenderer.Layer[]> consumer = (pos, layers) -> {
+                MapManager.addPackets(batch, world, pos, layers);
+                if (batch.size() >= MapManager.getBatchSize()) {
+                    MapManager.upload(uploader, url, endpoint, () -> token, batch);
+                }
+            };
+
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+
+            List<WorldChunk> generated = new ArrayList<>(chunks);
+            int size = (int) Math.ceil(Math.sqrt(chunks));
+            for (int i = 0; i < chunks; i++) {
+                generated.add(createChunk(world, new ChunkPos(OFFSET + i % size, OFFSET + i / size)));
+            }
+
+            // Full renders of chunks never seen before
+            Phase full = new Phase();
+            phase.set(full);
+            if (!render(world, generated, null, full, consumer, uploader, url, endpoint, token, batch, output)) {
+                return;
+            }
+            report("Full render", full, chunks, output);
+
+            // A single changed block per chunk, which only re-scans its column
+            Phase edits = new Phase();
+            phase.set(edits);
+            if (!render(world, generated, LoadTest::placeBlock, edits, consumer, uploader, url, endpoint, token, batch, output)) {
+                return;
+            }
+            report("Block edit", edits, chunks, output);
+
+            // Report
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            long received = backend.chunksReceived.get();
+            output.accept(String.format(" Requests: %d, %d errors", backend.requests.get(), backend.errors.get()));
+            output.accept(String.format(" Size: %d B/chunk", received == 0 ? 0 : backend.bytesReceived.get() / received));
+            output.accept(String.format(" Peak heap: %d MB", peakHeap / 1024 / 1024));
+        } finally {
+            uploader.shutdownNow();
+            backend.stop();
+        }
+    }
+
+    private interface Edit {
+        long[] apply(WorldChunk chunk);
+    }
+
+    /**
+     * Renders all chunks, flushes the last incomplete batch and waits until everything arrived or nothing happens anymore.
+     * Returns false if rendering did not finish in time.
+     */
+    private static boolean render(ServerWorld world, List<WorldChunk> chunks, Edit edit, Phase phase, BiConsumer<ChunkPos, ChunkRenderer.Layer[]> consumer,
+                                  ExecutorService uploader, String url, String endpoint, String token, ConcurrentLinkedQueue<Map<String, String>> batch, Consumer<String> output) throws InterruptedException {
+        ExecutorService renderer = Executors.newFixedThreadPool(Math.max(1, MapManager.getRenderThreads()));
+        try {
+            for (WorldChunk chunk : chunks) {
+                ChunkPos pos = chunk.getPos();
+                renderer.execute(() -> {
+                    long[] columns = edit == null ? null : edit.apply(chunk);
+                    phase.pending.put(pos.toLong(), System.nanoTime());
+                    Heightmap heightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
+                    if (MapManager.render(world, chunk, heightmap, columns, consumer)) {
+                        MapManager.reshade(world, new ChunkPos(pos.x, pos.z + 1), consumer);
+                    }
+                });
+            }
+
+            renderer.shutdown();
+            if (!renderer.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                output.accept("Rendering did not finish within " + TIMEOUT / 1000 + " s, aborting.");
+                return false;
+            }
+        } finally {
+            renderer.shutdownNow();
+        }
+
+        // All renders are done, so this flush catches the remainder
+        MapManager.upload(uploader, url, endpoint, () -> token, batch);
+
+        long lastProgress = System.nanoTime();
+        int lastPending = phase.pending.size();
+        while (!phase.pending.isEmpty() && System.nanoTime() - lastProgress < TIMEOUT * 1_000_000L) {
+            Thread.sleep(10);
+            if (phase.pending.size() != lastPending) {
+                lastPending = phase.pending.size();
+                lastProgress = System.nanoTime();
+            }
+        }
+        return true;
+    }
+
+    private static void report(String name, Phase phase, int chunks, Consumer<String> output) {
+        long[] sorted = phase.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        int received = sorted.length;
+
+        // Measured until the last arrival, lost batches must not add the idle wait
+        double seconds = (phase.lastReceived.get() - phase.start) / 1e9;
+        output.accept(String.format("%s: %d / %d received", name, received, chunks));
+        output.accept(String.format(" Throughput: %.1f chunks/s", received == 0 ? 0.0 : received / seconds));
+        output.accept(String.format(" Latency: p50 %.1f ms, p99 %.1f ms", percentile(sorted, 0.5), percentile(sorted, 0.99)));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    /**
+     * Builds a detached chunk with rolling hills, lakes and a cave band, without touching the actual world
+     */
+    private static WorldChunk createChunk(ServerWorld world, ChunkPos pos) {
+        WorldChunk chunk = new WorldChunk(world, pos);
+        BlockState stone = Blocks.STONE.getDefaultState();
+        BlockState water = Blocks.WATER.getDefaultState();
+        BlockState grass = Blocks.GRASS_BLOCK.getDefaultState();
+
+        int sea = world.getSeaLevel();
+        int bottom = world.getBottomY();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int bx = pos.getStartX() + x;
+                int bz = pos.getStartZ() + z;
+                int height = sea + (int) (12 * Math.sin(bx * 0.05) * Math.cos(bz * 0.07));
+                boolean cave = Math.sin(bx * 0.11 + bz * 0.13) > 0.3;
+                for (int y = bottom; y <= Math.max(height, sea); y++) {
+                    BlockState state;
+                    if (y > height) {
+                        state = water;
+                    } else if (y == height) {
+                        state = grass;
+                    } else if (cave && y > -24 && y < -16) {
+                        continue;
+                    } else {
+                        state = stone;
+                    }
+                    ChunkSection section = chunk.getSection(chunk.getSectionIndex(y));
+                    section.setBlockState(x, y & 15, z, state, false);
+                }
+            }
+        }
+
+        Heightmap.populateHeightmaps(chunk, EnumSet.of(Heightmap.Type.WORLD_SURFACE));
+        return chunk;
+    }
+
+    /**
+     * Places a block on top of the center column, bypassing the dirty tracker of the live map, and returns the dirty column mask
+     */
+    private static long[] placeBlock(WorldChunk chunk) {
+        int x = 8;
+        int z = 8;
+        BlockState state = Blocks.GOLD_BLOCK.getDefaultState();
+        Heightmap heightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
+        int y = heightmap.get(x, z);
+        chunk.getSection(chunk.getSectionIndex(y)).setBlockState(x, y & 15, z, state, false);
+        heightmap.trackUpdate(x, y, z, state);
+
+        long[] columns = new long[4];
+        int i = x + z * 16;
+        columns[i >> 6] |= 1L << (i & 63);
+        return columns;
+    }
+}
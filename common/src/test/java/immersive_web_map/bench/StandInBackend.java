@@ -0,0 +1,157 @@
+package immersive_web_map.bench;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import immersive_web_map.ChunkRenderer;
+import immersive_web_map.Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A minimal local implementation of the v1/auth, v1/chunks and v1/meta contract, with configurable latency, error rate and bandwidth
+ */
+public class StandInBackend {
+    public interface ChunkListener {
+        void onChunk(int x, int y, int z);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ChunkListener listener;
+
+    private final int latency;
+    private final double errorRate;
+    private final long bandwidth;
+
+    public final AtomicLong requests = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong bytesReceived = new AtomicLong();
+    public final AtomicLong chunksReceived = new AtomicLong();
+
+    /**
+     * @param latency   Additional delay per request in milliseconds
+     * @param errorRate Chance for a request to fail with a server error
+     * @param bandwidth Maximum bytes per second read from each request body, or 0 for unlimited
+     */
+    public StandInBackend(int latency, double errorRate, long bandwidth, ChunkListener listener) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.bandwidth = bandwidth;
+        this.listener = listener;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/auth", exchange -> handle(exchange, body -> "{\"token\": \"stand-in\", \"server\": 1}"));
+        server.createContext("/v1/meta/", exchange -> handle(exchange, body -> "{\"message\": \"success\"}"));
+        server.createContext("/v1/chunks/", exchange -> handle(exchange, this::receiveChunks));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private interface Handler {
+        String handle(byte[] body);
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.incrementAndGet();
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            bytesReceived.addAndGet(body.length);
+
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, "{\"message\": \"Simulated failure\"}");
+                return;
+            }
+
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                    body = stream.readAllBytes();
+                }
+            }
+
+            respond(exchange, 200, handler.handle(body));
+        } catch (Exception e) {
+            Common.LOGGER.error(e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] readBody(InputStream stream) throws IOException, InterruptedException {
+        if (bandwidth <= 0) {
+            return stream.readAllBytes();
+        }
+
+        // Read in small slices and wait whenever we are ahead of the bandwidth cap
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        long start = System.nanoTime();
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            long ahead = out.size() * 1000L / bandwidth - (System.nanoTime() - start) / 1_000_000L;
+            if (ahead > 0) {
+                Thread.sleep(ahead);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private String receiveChunks(byte[] body) {
+        try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)) {
+            for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                JsonObject chunk = element.getAsJsonObject();
+                chunksReceived.incrementAndGet();
+                listener.onChunk(
+                        chunk.get("x").getAsInt(),
+                        chunk.has("y") ? chunk.get("y").getAsInt() : ChunkRenderer.SURFACE,
+                        chunk.get("z").getAsInt()
+                );
+            }
+        } catch (IOException e) {
+            Common.LOGGER.error(e);
+        }
+        return "null";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package immersive_web_map.fabric;
+
+import immersive_web_map.bench.BenchCommand;
+import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+
+public final class FabricBench implements ModInitializer {
+    @Override
+    public void onInitialize() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
+            BenchCommand.register(dispatcher);
+        });
+    }
+}